@@ -16,6 +16,36 @@ class BinaryUtils {
         return bits;
     }
 
+    /**
+     * Computes a fast, non-cryptographic 64-bit hash of the bytes.
+     *
+     * @param bytes The bytes to hash.
+     * @return The hash.
+     */
+    public static long hash64(byte[] bytes) {
+        long hash = 0x9E3779B97F4A7C15L ^ bytes.length;
+        int i = 0;
+        for (; i + Long.BYTES <= bytes.length; i += Long.BYTES) {
+            long word = 0;
+            for (int j = Long.BYTES - 1; j >= 0; j--) {
+                word = (word << Byte.SIZE) | (bytes[i + j] & 0xFF);
+            }
+            hash = mix(hash ^ word);
+        }
+        long tail = 0;
+        for (int j = bytes.length - 1; j >= i; j--) {
+            tail = (tail << Byte.SIZE) | (bytes[j] & 0xFF);
+        }
+        return mix(hash ^ tail);
+    }
+
+    static long mix(long value) {
+        value *= 0xBF58476D1CE4E5B9L;
+        value ^= value >>> 31;
+        value *= 0x94D049BB133111EBL;
+        return value ^ (value >>> 29);
+    }
+
     public static void printLZSS(BitInput in) throws IOException {
         int searchBuffer = readUnit(12, in); // 1
         int lookAheadBuffer = readUnit(12, in); // 2
@@ -0,0 +1,164 @@
+package org.krystilize.qsf;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+/**
+ * Decodes the LZSS format written by {@link LZSSUtil#compressLZSS} from input which arrives in chunks.
+ * <p>
+ * The compressed data is never buffered, only the bits of a partially read token and the search buffer are kept
+ * between calls, and each unit is passed on as soon as it is decoded.
+ */
+final class LZSSStreamDecoder {
+
+    private static final int HEADER_FIELDS = 4;
+    private static final int HEADER_FIELD_SIZE = 12;
+
+    // Units are shorts in LZSSUtil
+    private static final int MAX_UNIT_BIT_SIZE = Short.SIZE;
+
+    private final int expectedUnitBitSize;
+    private final int units;
+    private final IntConsumer out;
+
+    // Bits which have been read from the input but not consumed yet, the oldest in the highest position
+    private int bits = 0;
+    private int bitCount = 0;
+
+    // Header
+    private int headerFields = 0;
+    private int searchBuffer;
+    private int lookAheadBuffer;
+    private int unitBitSize;
+    private int unitCount;
+    private int offsetSize;
+    private int lengthSize;
+
+    // The last searchBuffer units, initially zeros like the prefilled buffer in LZSSUtil
+    private short[] window;
+    private int windowPosition = 0;
+    private int unitsProcessed = 0;
+
+    // Partially read token
+    private int flag = -1;
+    private int offset = -1;
+
+    /**
+     * @param unitBitSize the unit size which the header must declare
+     * @param units       the number of units to pass on, the header must declare at least this many
+     * @param out         receives each of the first {@code units} units as it is decoded
+     */
+    LZSSStreamDecoder(int unitBitSize, int units, IntConsumer out) {
+        this.expectedUnitBitSize = unitBitSize;
+        this.units = units;
+        this.out = out;
+    }
+
+    /**
+     * Decodes as much of the input as possible.
+     * @param in the input, which is consumed up to the end of the compressed data at most
+     * @return true once every unit has been decoded
+     */
+    boolean feed(ByteBuffer in) {
+        while (headerFields < HEADER_FIELDS) {
+            int value = readBits(in, HEADER_FIELD_SIZE);
+            if (value < 0) {
+                return false;
+            }
+            readHeaderField(value + 1);
+        }
+
+        while (unitsProcessed < unitCount) {
+            if (flag < 0) {
+                flag = readBits(in, 1);
+                if (flag < 0) {
+                    return false;
+                }
+            }
+
+            if (flag == 0) {
+                // Unit
+                int unit = readBits(in, unitBitSize);
+                if (unit < 0) {
+                    return false;
+                }
+                emit((short) unit);
+            } else {
+                // Match, offset then length
+                if (offset < 0) {
+                    offset = readBits(in, offsetSize);
+                    if (offset < 0) {
+                        return false;
+                    }
+                    if (offset == 0 || offset > searchBuffer) {
+                        throw new IllegalStateException("Invalid match offset: " + offset);
+                    }
+                }
+                int length = readBits(in, lengthSize);
+                if (length < 0) {
+                    return false;
+                }
+                if (length == 0) {
+                    throw new IllegalStateException("Invalid match length: " + length);
+                }
+
+                // The offset stays the same as the match is written, so a match may overlap its own output
+                for (int i = 0; i < length; i++) {
+                    emit(window[Math.floorMod(windowPosition - offset, searchBuffer)]);
+                }
+                offset = -1;
+            }
+            flag = -1;
+        }
+        return true;
+    }
+
+    private void readHeaderField(int value) {
+        switch (headerFields++) {
+            case 0 -> searchBuffer = value;
+            case 1 -> lookAheadBuffer = value;
+            case 2 -> {
+                if (value != expectedUnitBitSize || value > MAX_UNIT_BIT_SIZE) {
+                    throw new IllegalStateException("Invalid unit size: " + value + ", expected " + expectedUnitBitSize);
+                }
+                unitBitSize = value;
+            }
+            case 3 -> {
+                if (value < units) {
+                    throw new IllegalStateException("Invalid unit count: " + value + ", expected at least " + units);
+                }
+                unitCount = value;
+                offsetSize = BinaryUtils.bitsToRepresent(searchBuffer);
+                lengthSize = BinaryUtils.bitsToRepresent(lookAheadBuffer);
+                window = new short[searchBuffer];
+            }
+        }
+    }
+
+    private void emit(short unit) {
+        window[windowPosition] = unit;
+        windowPosition = windowPosition + 1 == searchBuffer ? 0 : windowPosition + 1;
+        if (unitsProcessed < units) {
+            out.accept(unit & 0xFFFF);
+        }
+        unitsProcessed++;
+    }
+
+    /**
+     * Reads an unsigned big-endian value, keeping any bytes already taken from the input if there are not enough.
+     * @return the value, or -1 if more input is needed
+     */
+    private int readBits(ByteBuffer in, int size) {
+        while (bitCount < size) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            bits = (bits << Byte.SIZE) | (in.get() & 0xFF);
+            bitCount += Byte.SIZE;
+        }
+        bitCount -= size;
+        int value = (bits >>> bitCount) & ((1 << size) - 1);
+        bits &= (1 << bitCount) - 1;
+        return value;
+    }
+}
@@ -31,6 +31,22 @@ class LZSSUtil {
         return compressLZSS(unitBitSize, unitCount, in);
     }
 
+    /**
+     * Compresses the given data using LZSS.
+     * @param searchBuffer    The size of the search buffer.
+     * @param lookAheadBuffer The size of the look ahead buffer.
+     * @param unitBitSize     The size of the unit in bits.
+     * @param unitCount       The amount of units to compress.
+     * @param data            The data to compress.
+     * @return The compressed data as a byte[]
+     * @throws IOException If the input is not valid.
+     */
+    public static byte[] compressLZSS(short searchBuffer, short lookAheadBuffer, short unitBitSize, short unitCount,
+                                      byte[] data) throws IOException {
+        BitInput in = BitInputAdapter.from(StreamByteInput.from(new ByteArrayInputStream(data)));
+        return compressLZSS(searchBuffer, lookAheadBuffer, unitBitSize, unitCount, in);
+    }
+
     /**
      * Compresses the given data using LZSS.
      * @param unitBitSize The size of the unit in bits.
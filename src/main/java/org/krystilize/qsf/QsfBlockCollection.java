@@ -0,0 +1,91 @@
+package org.krystilize.qsf;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+record QsfBlockCollection(Collection<QsfBlocks.Block> blocks) implements QsfBlocks {
+
+    static final long FINGERPRINT_SEED = 0xCBF29CE484222325L;
+
+    @Override
+    public void forEach(BlockConsumer consumer) {
+        blocks.forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        return blocks.size();
+    }
+
+    @Override
+    public boolean contentEquals(QsfBlocks other) {
+        if (other instanceof QsfBlockCollection collection) {
+            if (blocks.size() != collection.blocks.size()) {
+                return false;
+            }
+            Iterator<Block> otherBlocks = collection.blocks.iterator();
+            for (Block block : blocks) {
+                if (!block.equals(otherBlocks.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (other instanceof QsfPackedBlocks packed) {
+            return packed.contentEquals(this);
+        }
+        if (blocks instanceof List<Block> list) {
+            return contentEquals(other, list);
+        }
+        return QsfBlocks.super.contentEquals(other);
+    }
+
+    /**
+     * Compares the blocks of a section with a list in a single pass.
+     * @param blocks the section
+     * @param list   the expected blocks
+     * @return true if the section contains exactly the blocks in the list
+     */
+    static boolean contentEquals(QsfBlocks blocks, List<Block> list) {
+        // Index of the next block, or -1 once a block differs
+        int[] index = new int[]{0};
+        blocks.forEach(block -> {
+            int i = index[0];
+            if (i < 0) {
+                return;
+            }
+            index[0] = i < list.size() && block.equals(list.get(i)) ? i + 1 : -1;
+        });
+        return index[0] == list.size();
+    }
+
+    /**
+     * Adds a block to a section fingerprint, see {@link QsfBlocks#fingerprint()}.
+     * @param hash      the fingerprint so far
+     * @param blockHash the hash of the block, from {@link #blockHash}
+     * @return the new fingerprint
+     */
+    static long fingerprint(long hash, int blockHash) {
+        return (hash ^ (blockHash & 0xFFFFFFFFL)) * 0x100000001B3L;
+    }
+
+    /**
+     * Finishes a section fingerprint, so every bit depends on every block.
+     * @param hash the fingerprint of all the blocks
+     * @return the final fingerprint
+     */
+    static long finishFingerprint(long hash) {
+        return BinaryUtils.mix(hash);
+    }
+
+    /**
+     * Hashes a block using only the hash codes specified by {@link String} and {@link java.util.Map}, so the hash is
+     * stable between block implementations and runs.
+     * @param block the block
+     * @return the hash
+     */
+    static int blockHash(Block block) {
+        return 31 * block.name().hashCode() + block.properties().hashCode();
+    }
+}
@@ -1,8 +1,6 @@
 package org.krystilize.qsf;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
@@ -11,7 +9,7 @@ import java.util.function.Consumer;
 public interface QsfBlocks {
 
     static QsfBlocks collection(Collection<Block> blocks) {
-        return blocks::forEach;
+        return new QsfBlockCollection(blocks);
     }
 
     static QsfBlocks consumerRunner(Consumer<Consumer<Block>> consumerRunner) {
@@ -25,41 +23,64 @@ public interface QsfBlocks {
      */
     void forEach(BlockConsumer consumer);
 
+    /**
+     * Gets the number of blocks in this section.
+     * @return The number of blocks
+     */
+    default int size() {
+        int[] count = new int[1];
+        forEach(block -> count[0]++);
+        return count[0];
+    }
+
     /**
      * Gets the information associated with this section.
      * @return The information
      */
     default Information information() {
-        long[] count = new long[1];
-        forEach(block -> count[0]++);
-
         // 1 -> 1
         // 9 -> 3
         // 25 -> 5
         // 49 -> 7
-        int width = (int) Math.ceil(Math.sqrt(count[0]));
+        int width = (int) Math.ceil(Math.sqrt(size()));
         return new Information(width);
     }
 
-    default boolean contentEquals(QsfBlocks decoded) {
-        Queue<Block> blocks = new ArrayDeque<>();
-        decoded.forEach(blocks::add);
-
-        AtomicBoolean failed = new AtomicBoolean(false);
+    /**
+     * Checks whether this section contains the same blocks, in the same order, as another section.
+     * @param other The other section
+     * @return true if the blocks are equal
+     */
+    default boolean contentEquals(QsfBlocks other) {
+        if (this == other) {
+            return true;
+        }
 
-        forEach(block -> {
-            Block poll = blocks.poll();
-            if (poll == null) {
-                failed.set(true);
-                return;
-            }
+        if (other instanceof QsfPackedBlocks) {
+            return other.contentEquals(this);
+        }
+        if (other instanceof QsfBlockCollection collection && collection.blocks() instanceof List<Block> list) {
+            return QsfBlockCollection.contentEquals(this, list);
+        }
 
-            if (!block.equals(poll)) {
-                failed.set(true);
-            }
-        });
+        List<Block> blocks = new ArrayList<>(16 * 16 * 16);
+        other.forEach(blocks::add);
+        return QsfBlockCollection.contentEquals(this, blocks);
+    }
 
-        return !failed.get();
+    /**
+     * Computes a 64-bit fingerprint of the blocks in this section, which is the same for every section with equal
+     * content regardless of how it is stored.
+     * <p>
+     * Storing the fingerprint next to an encoded section allows checking whether a section has changed since it was
+     * saved, without decoding the saved section. The encoded format doesn't contain a fingerprint, so callers have to
+     * compute it when saving and store it themselves.
+     * @return The fingerprint
+     */
+    default long fingerprint() {
+        long[] hash = new long[]{QsfBlockCollection.FINGERPRINT_SEED};
+        forEach(block -> hash[0] = QsfBlockCollection.fingerprint(hash[0], QsfBlockCollection.blockHash(block)));
+        return QsfBlockCollection.finishFingerprint(hash[0]);
     }
 
     record Information(int width) {
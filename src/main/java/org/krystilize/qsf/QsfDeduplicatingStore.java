@@ -0,0 +1,212 @@
+package org.krystilize.qsf;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Stores encoded sections by content, so identical sections share a single payload and a single decoded instance.
+ * <p>
+ * Payloads are reference counted, and are dropped once no key refers to them. Sections returned by {@link #load} are
+ * shared between every key with the same content, and must not be modified. They are only held softly, so a section
+ * may be decoded again once the garbage collector has cleared it.
+ * <p>
+ * A payload's id is the 64-bit hash of its bytes, so it stays the same across runs as long as the encoder settings do.
+ * Two different payloads with the same id are treated as an error rather than given different ids.
+ * <p>
+ * To persist the store, write each key's {@link Reference#id()}, and write a payload only when
+ * {@link Reference#newPayload()} is set. A payload can be deleted once {@link #isReferenced(long)} returns false. To
+ * reload it, {@link #restore} each key, so its payload isn't reported as new again. Payload arrays are copied on the
+ * way in and out, so callers can't change a shared payload.
+ *
+ * @param <K> the section key
+ */
+public final class QsfDeduplicatingStore<K> {
+
+    private final QsfSectionEncoder encoder;
+    private final QsfSectionDecoder decoder;
+    private final Map<K, Payload> keys = new HashMap<>();
+    private final Map<Long, Payload> payloads = new HashMap<>();
+
+    public QsfDeduplicatingStore(QsfSectionEncoder.Settings encoderSettings, QsfSectionDecoder.Settings decoderSettings) {
+        this.encoder = new QsfSectionEncoder(encoderSettings);
+        this.decoder = new QsfSectionDecoder(decoderSettings);
+    }
+
+    /**
+     * Encodes and stores a section, replacing any section previously stored with this key.
+     * @param key    the section key
+     * @param blocks the section
+     * @return a reference to the stored payload, which is shared with identical sections
+     * @throws IllegalStateException if a different payload with the same id is stored
+     */
+    public Reference put(K key, QsfBlocks blocks) {
+        return put(key, encoder.encode(blocks), false);
+    }
+
+    /**
+     * Stores an encoded section, replacing any section previously stored with this key.
+     * @param key   the section key
+     * @param bytes the encoded section, which is copied if it is not already stored
+     * @return a reference to the stored payload, which is shared with identical sections
+     * @throws IllegalStateException if a different payload with the same id is stored
+     */
+    public Reference put(K key, byte[] bytes) {
+        return put(key, bytes, true);
+    }
+
+    private synchronized Reference put(K key, byte[] bytes, boolean copy) {
+        long id = BinaryUtils.hash64(bytes);
+        boolean newPayload = !payloads.containsKey(id);
+        reference(key, payload(id, bytes, copy));
+        return new Reference(id, newPayload);
+    }
+
+    /**
+     * Restores a key which refers to a persisted payload, replacing any section previously stored with this key.
+     * <p>
+     * The payload is only read if no other key refers to it yet, and it is never reported as new by a later
+     * {@link #put}. The loader is called without holding the store's lock.
+     * @param key    the section key
+     * @param id     the persisted payload id
+     * @param loader reads the persisted payload with the given id
+     * @throws IllegalStateException if the loaded payload does not match the id
+     */
+    public void restore(K key, long id, LongFunction<byte[]> loader) {
+        synchronized (this) {
+            Payload payload = payloads.get(id);
+            if (payload != null) {
+                reference(key, payload);
+                return;
+            }
+        }
+
+        // Racing restores of the same payload may both read it
+        byte[] bytes = loader.apply(id);
+        if (BinaryUtils.hash64(bytes) != id) {
+            throw new IllegalStateException("Payload does not match its id " + Long.toHexString(id));
+        }
+        synchronized (this) {
+            reference(key, payload(id, bytes, true));
+        }
+    }
+
+    private Payload payload(long id, byte[] bytes, boolean copy) {
+        Payload payload = payloads.get(id);
+        if (payload == null) {
+            payload = new Payload(copy ? bytes.clone() : bytes, id);
+            payloads.put(id, payload);
+        } else if (!Arrays.equals(payload.bytes, bytes)) {
+            throw new IllegalStateException("Different payloads have the same id " + Long.toHexString(id));
+        }
+        return payload;
+    }
+
+    private void reference(K key, Payload payload) {
+        payload.references++;
+        release(keys.put(key, payload));
+    }
+
+    /**
+     * Gets the encoded form of a section.
+     * @param key the section key
+     * @return a copy of the encoded section, or null if there is no section with this key
+     */
+    public synchronized byte[] payload(K key) {
+        Payload payload = keys.get(key);
+        return payload == null ? null : payload.bytes.clone();
+    }
+
+    /**
+     * Gets the id of a section's payload.
+     * @param key the section key
+     * @return the payload id, or null if there is no section with this key
+     */
+    public synchronized Long id(K key) {
+        Payload payload = keys.get(key);
+        return payload == null ? null : payload.id;
+    }
+
+    /**
+     * Checks whether any key still refers to a payload.
+     * @param id the payload id
+     * @return true if the payload is still stored
+     */
+    public synchronized boolean isReferenced(long id) {
+        return payloads.containsKey(id);
+    }
+
+    /**
+     * Gets the decoded form of a section, decoding it only if no decoded identical section is still cached.
+     * @param key the section key
+     * @return the shared decoded section, or null if there is no section with this key
+     */
+    public QsfBlocks load(K key) {
+        Payload payload;
+        synchronized (this) {
+            payload = keys.get(key);
+        }
+        if (payload == null) {
+            return null;
+        }
+
+        // Racing loads may both decode, but they produce equal sections
+        SoftReference<QsfBlocks> cached = payload.decoded;
+        QsfBlocks decoded = cached == null ? null : cached.get();
+        if (decoded == null) {
+            decoded = decoder.decode(payload.bytes);
+            payload.decoded = new SoftReference<>(decoded);
+        }
+        return decoded;
+    }
+
+    /**
+     * Removes a section.
+     * @param key the section key
+     */
+    public synchronized void remove(K key) {
+        release(keys.remove(key));
+    }
+
+    /**
+     * @return the number of stored keys
+     */
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return the number of distinct payloads
+     */
+    public synchronized int uniqueCount() {
+        return payloads.size();
+    }
+
+    private void release(Payload payload) {
+        if (payload != null && --payload.references == 0) {
+            payloads.remove(payload.id);
+        }
+    }
+
+    /**
+     * A reference to a stored payload.
+     * @param id         the payload id, equal for every key with the same content
+     * @param newPayload whether the payload was not stored before, so it still needs to be written
+     */
+    public record Reference(long id, boolean newPayload) {
+    }
+
+    private static final class Payload {
+        private final byte[] bytes;
+        private final long id;
+        private int references = 0;
+        private volatile SoftReference<QsfBlocks> decoded = null;
+
+        private Payload(byte[] bytes, long id) {
+            this.bytes = bytes;
+            this.id = id;
+        }
+    }
+}
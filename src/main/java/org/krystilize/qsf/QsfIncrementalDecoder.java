@@ -0,0 +1,334 @@
+package org.krystilize.qsf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A non-blocking decoder for length-prefixed QSF sections.
+ * <p>
+ * Bytes can be fed in chunks of any size, the decoder keeps its position in the section between calls. Each frame is
+ * a 32-bit section length followed by the section itself, as written by {@link QsfSectionEncoder#encodeFramed}.
+ * <p>
+ * Typical usage:
+ * <pre>{@code
+ * while (decoder.feed(buffer) == QsfIncrementalDecoder.Result.SECTION_COMPLETE) {
+ *     QsfBlocks section = decoder.poll();
+ * }
+ * }</pre>
+ * This class is not thread safe, use one instance per connection.
+ * <p>
+ * Every length read from the input is checked against the bytes left in its frame before anything is allocated, and
+ * frames are limited to {@link #maxFrameSize()} bytes. The compressed blocks are decoded as they arrive, so only the
+ * LZSS search buffer is kept for them between calls, never the compressed payload. Invalid input throws {@link IllegalStateException} and resets
+ * the decoder, but the rest of the invalid frame can't be skipped reliably, so the connection should be closed.
+ */
+public final class QsfIncrementalDecoder {
+
+    private final QsfOffHeapArena arena;
+    private final int maxFrameSize;
+
+    private State state = State.FRAME_LENGTH;
+    private QsfBlocks completed = null;
+
+    // Bytes of the current frame which are yet to be read
+    private int frameRemaining;
+
+    // Partially read big-endian value
+    private long scratch;
+    private int scratchBytes;
+
+    // Partially read string
+    private StringBuilder string = null;
+    private int stringRemaining;
+
+    // Palette
+    private List<QsfBlocks.Block> palette;
+    private int paletteRemaining;
+    private String name;
+    private Map.Entry<String, String>[] properties;
+    private int propertyIndex;
+    private String propertyKey;
+
+    // Section
+    private int bitsCount;
+    private LZSSStreamDecoder lzss;
+    private QsfBlocks.Block[] blocks;
+    private QsfPackedBlocks packed;
+    private int blockIndex;
+
+    /**
+     * The default limit on the size of a frame, in bytes.
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1 << 22;
+
+    // The LZSS header stores the unit count in 12 bits
+    private static final int MAX_BLOCK_COUNT = 4096;
+
+    // Smallest encoded sizes, used to reject counts which can't fit in the rest of the frame
+    private static final int MIN_PALETTE_ENTRY_BYTES = 2 * Integer.BYTES;
+    private static final int MIN_PROPERTY_BYTES = 2 * Integer.BYTES;
+
+    public QsfIncrementalDecoder(QsfSectionDecoder.Settings settings) {
+        this(settings, null);
+    }
+
+    /**
+     * @param settings the decoder settings
+     * @param arena    the arena to decode sections into, or null to decode them onto the heap
+     */
+    public QsfIncrementalDecoder(QsfSectionDecoder.Settings settings, QsfOffHeapArena arena) {
+        this(settings, arena, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param settings     the decoder settings
+     * @param arena        the arena to decode sections into, or null to decode them onto the heap
+     * @param maxFrameSize the largest frame to accept, in bytes
+     */
+    public QsfIncrementalDecoder(QsfSectionDecoder.Settings settings, QsfOffHeapArena arena, int maxFrameSize) {
+        if (maxFrameSize < 0) {
+            throw new IllegalArgumentException("maxFrameSize must not be negative");
+        }
+        this.arena = arena;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return the largest frame this decoder accepts, in bytes
+     */
+    public int maxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Consumes bytes from the buffer until either the buffer is exhausted or a section has been completed.
+     * <p>
+     * When a section is completed, any bytes after it are left in the buffer, and the section must be taken using
+     * {@link #poll()} before feeding more input.
+     *
+     * @param in the input
+     * @return {@link Result#SECTION_COMPLETE} if a section is ready, otherwise {@link Result#NEED_MORE_INPUT}
+     */
+    public Result feed(ByteBuffer in) {
+        if (completed != null) {
+            throw new IllegalStateException("The completed section must be polled before feeding more input");
+        }
+
+        try {
+            return feedUNSAFE(in);
+        } catch (RuntimeException e) {
+            reset();
+            throw e instanceof IllegalStateException ? e : new IllegalStateException("Invalid section", e);
+        }
+    }
+
+    private Result feedUNSAFE(ByteBuffer in) {
+        while (true) {
+            switch (state) {
+                case FRAME_LENGTH -> {
+                    if (!fill(in, Integer.BYTES)) return Result.NEED_MORE_INPUT;
+                    int length = takeInt();
+                    if (length < 0 || length > maxFrameSize) {
+                        throw new IllegalStateException("Invalid frame length: " + length);
+                    }
+                    frameRemaining = length;
+                    state = State.PALETTE_SIZE;
+                }
+                case PALETTE_SIZE -> {
+                    if (!fill(in, Integer.BYTES)) return Result.NEED_MORE_INPUT;
+                    paletteRemaining = checkCount(takeInt(), MIN_PALETTE_ENTRY_BYTES, "palette size");
+                    palette = new ArrayList<>(paletteRemaining);
+                    state = paletteRemaining > 0 ? State.NAME : State.BITS_COUNT;
+                }
+                case NAME -> {
+                    name = readString(in);
+                    if (name == null) return Result.NEED_MORE_INPUT;
+                    state = State.PROPERTIES_SIZE;
+                }
+                case PROPERTIES_SIZE -> {
+                    if (!fill(in, Integer.BYTES)) return Result.NEED_MORE_INPUT;
+                    //noinspection unchecked
+                    properties = new Map.Entry[checkCount(takeInt(), MIN_PROPERTY_BYTES, "property count")];
+                    propertyIndex = 0;
+                    state = State.PROPERTY_KEY;
+                }
+                case PROPERTY_KEY -> {
+                    if (propertyIndex == properties.length) {
+                        palette.add(QsfBlocks.Block.of(name, Map.ofEntries(properties)));
+                        paletteRemaining--;
+                        state = paletteRemaining > 0 ? State.NAME : State.BITS_COUNT;
+                        continue;
+                    }
+                    propertyKey = readString(in);
+                    if (propertyKey == null) return Result.NEED_MORE_INPUT;
+                    state = State.PROPERTY_VALUE;
+                }
+                case PROPERTY_VALUE -> {
+                    String propertyValue = readString(in);
+                    if (propertyValue == null) return Result.NEED_MORE_INPUT;
+                    properties[propertyIndex++] = Map.entry(propertyKey, propertyValue);
+                    state = State.PROPERTY_KEY;
+                }
+                case BITS_COUNT -> {
+                    if (!fill(in, Integer.BYTES)) return Result.NEED_MORE_INPUT;
+                    bitsCount = takeInt();
+                    if (bitsCount < 0 || bitsCount > MAX_BLOCK_COUNT) {
+                        throw new IllegalStateException("Invalid block count: " + bitsCount);
+                    }
+                    state = State.BYTES_LENGTH;
+                }
+                case BYTES_LENGTH -> {
+                    if (!fill(in, Integer.BYTES)) return Result.NEED_MORE_INPUT;
+                    int length = takeInt();
+                    // The frame length has already been checked against the limit
+                    if (length != frameRemaining) {
+                        throw new IllegalStateException("Section payload of " + length + " bytes does not match the " +
+                                frameRemaining + " bytes left in its frame");
+                    }
+                    int bitSize = QsfSectionDecoder.bitSize(palette.size());
+                    if (arena != null) {
+                        packed = new QsfPackedBlocks(arena, palette, bitsCount, bitSize);
+                    } else {
+                        blocks = new QsfBlocks.Block[bitsCount];
+                    }
+                    blockIndex = 0;
+                    lzss = new LZSSStreamDecoder(bitSize, bitsCount, this::addBlock);
+                    state = State.BYTES;
+                }
+                case BYTES -> {
+                    ByteBuffer payload = in.slice(in.position(), Math.min(in.remaining(), frameRemaining));
+                    boolean decoded = lzss.feed(payload);
+                    if (decoded) {
+                        // Skip the padding after the last unit
+                        payload.position(payload.limit());
+                    }
+                    in.position(in.position() + payload.position());
+                    frameRemaining -= payload.position();
+                    if (frameRemaining > 0) return Result.NEED_MORE_INPUT;
+                    if (!decoded) {
+                        throw new IllegalStateException("Section payload ended before all of its blocks were decoded");
+                    }
+
+                    completed = packed != null ? packed : QsfBlocks.collection(List.of(blocks));
+                    reset();
+                    return Result.SECTION_COMPLETE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the most recently completed section.
+     * @return the section, or null if no section has been completed since the last poll
+     */
+    public QsfBlocks poll() {
+        QsfBlocks section = completed;
+        completed = null;
+        return section;
+    }
+
+    private void reset() {
+        state = State.FRAME_LENGTH;
+        scratch = 0;
+        scratchBytes = 0;
+        string = null;
+        palette = null;
+        name = null;
+        properties = null;
+        propertyKey = null;
+        lzss = null;
+        blocks = null;
+        packed = null;
+    }
+
+    private void addBlock(int paletteIndex) {
+        if (paletteIndex >= palette.size()) {
+            throw new IllegalStateException("Invalid palette index: " + paletteIndex + ", with a palette of " +
+                    palette.size() + " blocks");
+        }
+        if (packed != null) {
+            packed.setIndex(blockIndex++, paletteIndex);
+        } else {
+            blocks[blockIndex++] = palette.get(paletteIndex);
+        }
+    }
+
+    /**
+     * Reads bytes into the scratch value until it holds the given number of bytes.
+     * @return true if the scratch value is complete
+     */
+    private boolean fill(ByteBuffer in, int size) {
+        while (scratchBytes < size) {
+            if (!in.hasRemaining()) {
+                return false;
+            }
+            if (state != State.FRAME_LENGTH && frameRemaining-- <= 0) {
+                throw new IllegalStateException("Section is larger than its frame");
+            }
+            scratch = (scratch << Byte.SIZE) | (in.get() & 0xFF);
+            scratchBytes++;
+        }
+        return true;
+    }
+
+    private int takeInt() {
+        int value = (int) scratch;
+        scratch = 0;
+        scratchBytes = 0;
+        return value;
+    }
+
+    /**
+     * Reads a sized string, see {@link BinaryUtils#readSizedString}.
+     * @return the string, or null if more input is needed
+     */
+    private String readString(ByteBuffer in) {
+        if (string == null) {
+            if (!fill(in, Integer.BYTES)) return null;
+            stringRemaining = checkCount(takeInt(), Character.BYTES, "string length");
+            string = new StringBuilder(stringRemaining);
+        }
+        while (stringRemaining > 0) {
+            if (!fill(in, Character.BYTES)) return null;
+            string.append((char) takeInt());
+            stringRemaining--;
+        }
+        String result = string.toString();
+        string = null;
+        return result;
+    }
+
+    /**
+     * Checks that a count read from the input can fit in the rest of the frame.
+     * @param count    the count
+     * @param minBytes the smallest number of bytes each counted element is encoded in
+     * @param what     what is being counted, for the error message
+     * @return the count
+     */
+    private int checkCount(int count, int minBytes, String what) {
+        if (count < 0 || (long) count * minBytes > frameRemaining) {
+            throw new IllegalStateException("Invalid " + what + ": " + count + ", with " + frameRemaining +
+                    " bytes left in the frame");
+        }
+        return count;
+    }
+
+    public enum Result {
+        NEED_MORE_INPUT,
+        SECTION_COMPLETE
+    }
+
+    private enum State {
+        FRAME_LENGTH,
+        PALETTE_SIZE,
+        NAME,
+        PROPERTIES_SIZE,
+        PROPERTY_KEY,
+        PROPERTY_VALUE,
+        BITS_COUNT,
+        BYTES_LENGTH,
+        BYTES
+    }
+}
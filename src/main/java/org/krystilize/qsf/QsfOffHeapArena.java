@@ -0,0 +1,115 @@
+package org.krystilize.qsf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Owns the off-heap memory of decoded sections.
+ * <p>
+ * Memory is handed out from large direct buffers, so each section only costs a small heap object. The blocks in each
+ * palette are interned by the arena, so that sections with the same blocks share the same instances. Palettes themselves
+ * are not interned, as the number of distinct palettes grows with the world while the number of distinct blocks stays
+ * small.
+ * <p>
+ * Once the arena is closed, every section allocated from it throws {@link IllegalStateException} when accessed. Memory
+ * is released per slab, each slab is only freed once no section allocated from it is referenced, so a single section
+ * which is still referenced keeps its whole slab alive.
+ */
+public final class QsfOffHeapArena implements AutoCloseable {
+
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private final int slabSize;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private ByteBuffer slab = null;
+    private final Map<QsfBlocks.Block, QsfBlocks.Block> blocks = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public QsfOffHeapArena() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize the size in bytes of each direct buffer allocated by this arena
+     */
+    public QsfOffHeapArena(int slabSize) {
+        if (slabSize < Long.BYTES) {
+            throw new IllegalArgumentException("slabSize must be at least " + Long.BYTES);
+        }
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Allocates zeroed, native ordered memory which stays valid until this arena is closed.
+     * @param size the size in bytes
+     * @return the memory
+     */
+    synchronized ByteBuffer allocate(int size) {
+        checkOpen();
+
+        // Keep every allocation long aligned
+        int aligned = (size + Long.BYTES - 1) & -Long.BYTES;
+        if (aligned > slabSize) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(aligned).order(ByteOrder.nativeOrder());
+            slabs.add(buffer);
+            return buffer;
+        }
+        if (slab == null || slab.remaining() < aligned) {
+            slab = ByteBuffer.allocateDirect(slabSize);
+            slabs.add(slab);
+        }
+
+        ByteBuffer buffer = slab.slice(slab.position(), aligned).order(ByteOrder.nativeOrder());
+        slab.position(slab.position() + aligned);
+        return buffer;
+    }
+
+    /**
+     * Interns each block of a palette.
+     * @param palette the palette
+     * @return an immutable palette equal to the given one, made of the shared block instances
+     */
+    List<QsfBlocks.Block> intern(List<QsfBlocks.Block> palette) {
+        checkOpen();
+        QsfBlocks.Block[] interned = new QsfBlocks.Block[palette.size()];
+        for (int i = 0; i < interned.length; i++) {
+            QsfBlocks.Block block = palette.get(i);
+            QsfBlocks.Block existing = blocks.putIfAbsent(block, block);
+            interned[i] = existing == null ? block : existing;
+        }
+        return List.of(interned);
+    }
+
+    void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The arena has been closed");
+        }
+    }
+
+    /**
+     * Gets the number of bytes of direct memory reserved by this arena.
+     * @return the size in bytes
+     */
+    public synchronized long reservedBytes() {
+        long size = 0;
+        for (ByteBuffer buffer : slabs) {
+            size += buffer.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Closes this arena, invalidating all sections allocated from it.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        slabs.clear();
+        slab = null;
+        blocks.clear();
+    }
+}
@@ -0,0 +1,244 @@
+package org.krystilize.qsf;
+
+import com.github.jinahya.bit.io.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A single threaded codec for arrays of fixed width unsigned values, such as light nibbles, biome ids or heightmaps.
+ * <p>
+ * Values are optionally replaced by indices into a palette of the distinct values, then packed into units of the
+ * smallest width that holds them, and optionally compressed with LZSS in blocks of {@value #LZSS_BLOCK_SIZE} units.
+ */
+public record QsfPackedArrayCodec(Settings settings) {
+
+    /**
+     * The largest supported value width, in bits.
+     */
+    public static final int MAX_WIDTH = 15;
+
+    // The LZSS header stores the unit count in 12 bits
+    private static final int LZSS_BLOCK_SIZE = 4096;
+
+    /**
+     * Encodes the values.
+     * @param values The values to encode, each must fit in {@code width} bits.
+     * @param width  The width of each value in bits.
+     * @param out    The output to write to.
+     */
+    public void encode(int[] values, int width, BitOutput out) {
+        try {
+            encodeUNSAFE(values, width, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encodes the values.
+     * @param values    The values to encode, each must fit in {@code width} bits.
+     * @param width     The width of each value in bits.
+     * @param outStream The output to write to.
+     */
+    public void encode(int[] values, int width, OutputStream outStream) {
+        BitOutput out = BitOutputAdapter.from(StreamByteOutput.from(outStream));
+        encode(values, width, out);
+        try {
+            out.align();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encodes the values.
+     * @param values The values to encode, each must fit in {@code width} bits.
+     * @param width  The width of each value in bits.
+     * @return The encoded values.
+     */
+    public byte[] encode(int[] values, int width) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(values, width, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the values.
+     * @param in the input
+     * @return the decoded values
+     */
+    public int[] decode(BitInput in) {
+        try {
+            return decodeUNSAFE(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decodes the values.
+     * @param in the input stream
+     * @return the decoded values
+     */
+    public int[] decode(InputStream in) {
+        return decode(BitInputAdapter.from(StreamByteInput.from(in)));
+    }
+
+    /**
+     * Decodes the values.
+     * @param bytes the bytes
+     * @return the decoded values
+     */
+    public int[] decode(byte[] bytes) {
+        return decode(new ByteArrayInputStream(bytes));
+    }
+
+    private void encodeUNSAFE(int[] values, int width, BitOutput out) throws IOException {
+        // Encoding:
+        // 1. Value count (int32)
+        // 2. Value width - 1 (int4)
+        // 3. Palette flag, LZSS flag (boolean, boolean)
+        // 4. Palette, if used: size (int32) then each value (width)
+        // 5. Units, either directly or as LZSS compressed byte arrays
+        if (width < 1 || width > MAX_WIDTH) {
+            throw new IllegalArgumentException("width must be between 1 and " + MAX_WIDTH);
+        }
+        for (int value : values) {
+            if (value < 0 || value >>> width != 0) {
+                throw new IllegalArgumentException("Value " + value + " does not fit in " + width + " bits");
+            }
+        }
+
+        // Only use the palette when it makes the units smaller
+        int[] palette = settings.palette() ? Arrays.stream(values).distinct().sorted().toArray() : null;
+        int unitBitSize = width;
+        if (palette != null) {
+            int indexBitSize = Math.max(BinaryUtils.bitsToRepresent(palette.length - 1), 1);
+            if (indexBitSize < width) {
+                unitBitSize = indexBitSize;
+            } else {
+                palette = null;
+            }
+        }
+        boolean lzss = settings.lzss() && values.length > 0;
+
+        // 1, 2, 3
+        out.writeInt32(values.length);
+        BinaryUtils.writeUnit(4, out, width - 1);
+        out.writeBoolean(palette != null);
+        out.writeBoolean(lzss);
+
+        // 4
+        int[] units = values;
+        if (palette != null) {
+            out.writeInt32(palette.length);
+            for (int value : palette) {
+                BinaryUtils.writeUnit(width, out, value);
+            }
+            units = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                units[i] = Arrays.binarySearch(palette, values[i]);
+            }
+        }
+
+        // 5
+        if (!lzss) {
+            for (int unit : units) {
+                BinaryUtils.writeUnit(unitBitSize, out, unit);
+            }
+            return;
+        }
+
+        for (int start = 0; start < units.length; start += LZSS_BLOCK_SIZE) {
+            int count = Math.min(LZSS_BLOCK_SIZE, units.length - start);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            BitOutput unitsOut = BitOutputAdapter.from(StreamByteOutput.from(outputStream));
+            for (int i = start; i < start + count; i++) {
+                BinaryUtils.writeUnit(unitBitSize, unitsOut, units[i]);
+            }
+            unitsOut.align();
+
+            // The look ahead buffer is filled before compressing, so it can't be larger than the input
+            short lookAheadBuffer = (short) Math.min(settings.lookAheadBuffer(), count);
+            byte[] compressed = LZSSUtil.compressLZSS(settings.searchBuffer(), lookAheadBuffer, (short) unitBitSize,
+                    (short) count, outputStream.toByteArray());
+            BinaryUtils.writeByteArray(out, compressed);
+        }
+    }
+
+    private int[] decodeUNSAFE(BitInput in) throws IOException {
+        // 1, 2, 3
+        int length = in.readInt32();
+        int width = BinaryUtils.readUnit(4, in) + 1;
+        boolean hasPalette = in.readBoolean();
+        boolean lzss = in.readBoolean();
+
+        // 4
+        int[] palette = null;
+        int unitBitSize = width;
+        if (hasPalette) {
+            palette = new int[in.readInt32()];
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = BinaryUtils.readUnit(width, in);
+            }
+            unitBitSize = Math.max(BinaryUtils.bitsToRepresent(palette.length - 1), 1);
+        }
+
+        // 5
+        int[] values = new int[length];
+        if (!lzss) {
+            for (int i = 0; i < length; i++) {
+                values[i] = BinaryUtils.readUnit(unitBitSize, in);
+            }
+        } else {
+            for (int start = 0; start < length; start += LZSS_BLOCK_SIZE) {
+                int count = Math.min(LZSS_BLOCK_SIZE, length - start);
+                byte[] decompressed = LZSSUtil.decompressLZSS(BinaryUtils.readByteArray(in));
+                BitInput unitsIn = BitInputAdapter.from(StreamByteInput.from(new ByteArrayInputStream(decompressed)));
+                for (int i = start; i < start + count; i++) {
+                    values[i] = BinaryUtils.readUnit(unitBitSize, unitsIn);
+                }
+            }
+        }
+
+        if (palette != null) {
+            for (int i = 0; i < length; i++) {
+                values[i] = palette[values[i]];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The codec settings.
+     * @param palette         Whether to replace values with palette indices, when that makes them smaller.
+     * @param lzss            Whether to compress the units using LZSS.
+     * @param searchBuffer    The LZSS search buffer size.
+     * @param lookAheadBuffer The LZSS look ahead buffer size.
+     */
+    public record Settings(boolean palette, boolean lzss, short searchBuffer, short lookAheadBuffer) {
+
+        public Settings {
+            if (searchBuffer < 1 || searchBuffer > 4096) {
+                throw new IllegalArgumentException("searchBuffer must be between 1 and 4096");
+            }
+            if (lookAheadBuffer < 1 || lookAheadBuffer > searchBuffer) {
+                throw new IllegalArgumentException("lookAheadBuffer must be between 1 and searchBuffer");
+            }
+        }
+
+        public Settings(boolean palette, boolean lzss) {
+            this(palette, lzss, (short) 127, (short) 32);
+        }
+
+        public Settings() {
+            this(true, true);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.krystilize.qsf;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A section stored as packed palette indices in off-heap memory owned by a {@link QsfOffHeapArena}.
+ * <p>
+ * Indices are packed into longs without spanning between them, lowest bits first.
+ */
+public final class QsfPackedBlocks implements QsfBlocks {
+
+    private final QsfOffHeapArena arena;
+    private final List<Block> palette;
+    private final int size;
+    private final int bitSize;
+    private final int perLong;
+    private final long mask;
+    private final ByteBuffer data;
+
+    QsfPackedBlocks(QsfOffHeapArena arena, List<Block> palette, int size, int bitSize) {
+        this.arena = arena;
+        this.palette = arena.intern(palette);
+        this.size = size;
+        this.bitSize = bitSize;
+        this.perLong = Long.SIZE / bitSize;
+        this.mask = (1L << bitSize) - 1;
+        this.data = arena.allocate(((size + perLong - 1) / perLong) * Long.BYTES);
+    }
+
+    void setIndex(int index, int paletteIndex) {
+        int offset = (index / perLong) * Long.BYTES;
+        int shift = (index % perLong) * bitSize;
+        long value = data.getLong(offset);
+        value = (value & ~(mask << shift)) | ((paletteIndex & mask) << shift);
+        data.putLong(offset, value);
+    }
+
+    /**
+     * Gets the palette index of a block.
+     * @param index the index of the block, in the order of {@link #forEach}
+     * @return the palette index
+     */
+    public int paletteIndex(int index) {
+        arena.checkOpen();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return unsafePaletteIndex(index);
+    }
+
+    private int unsafePaletteIndex(int index) {
+        return (int) ((data.getLong((index / perLong) * Long.BYTES) >>> ((index % perLong) * bitSize)) & mask);
+    }
+
+    /**
+     * Gets a block.
+     * @param index the index of the block, in the order of {@link #forEach}
+     * @return the block
+     */
+    public Block get(int index) {
+        return palette.get(paletteIndex(index));
+    }
+
+    /**
+     * @return the blocks which this section's palette indices refer to, each shared with every section in the arena
+     */
+    public List<Block> palette() {
+        return palette;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(BlockConsumer consumer) {
+        arena.checkOpen();
+        int index = 0;
+        for (int offset = 0; index < size; offset += Long.BYTES) {
+            long value = data.getLong(offset);
+            for (int i = 0; i < perLong && index < size; i++, index++) {
+                consumer.accept(palette.get((int) (value & mask)));
+                value >>>= bitSize;
+            }
+        }
+    }
+
+    @Override
+    public boolean contentEquals(QsfBlocks other) {
+        arena.checkOpen();
+        if (this == other) {
+            return true;
+        }
+        if (other instanceof QsfPackedBlocks packed) {
+            return contentEquals(packed);
+        }
+
+        // Compare against this section's palette, without unpacking it
+        int[] index = new int[]{0};
+        other.forEach(block -> {
+            int i = index[0];
+            if (i < 0) {
+                return;
+            }
+            index[0] = i < size && block.equals(palette.get(unsafePaletteIndex(i))) ? i + 1 : -1;
+        });
+        return index[0] == size;
+    }
+
+    private boolean contentEquals(QsfPackedBlocks other) {
+        other.arena.checkOpen();
+        if (size != other.size) {
+            return false;
+        }
+
+        // Give equal blocks in both palettes the same id, so only indices need to be compared
+        Map<Block, Integer> ids = new HashMap<>();
+        int[] thisIds = new int[palette.size()];
+        boolean identity = true;
+        for (int i = 0; i < thisIds.length; i++) {
+            thisIds[i] = ids.computeIfAbsent(palette.get(i), block -> ids.size());
+            identity &= thisIds[i] == i;
+        }
+        int[] otherIds = new int[other.palette.size()];
+        for (int i = 0; i < otherIds.length; i++) {
+            otherIds[i] = ids.computeIfAbsent(other.palette.get(i), block -> ids.size());
+            identity &= otherIds[i] == i;
+        }
+
+        // Same palette in the same order, so the packed data can be compared directly
+        if (identity && bitSize == other.bitSize) {
+            return data.mismatch(other.data) == -1;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (thisIds[unsafePaletteIndex(i)] != otherIds[other.unsafePaletteIndex(i)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long fingerprint() {
+        arena.checkOpen();
+        int[] blockHashes = new int[palette.size()];
+        for (int i = 0; i < blockHashes.length; i++) {
+            blockHashes[i] = QsfBlockCollection.blockHash(palette.get(i));
+        }
+
+        long hash = QsfBlockCollection.FINGERPRINT_SEED;
+        for (int i = 0; i < size; i++) {
+            hash = QsfBlockCollection.fingerprint(hash, blockHashes[unsafePaletteIndex(i)]);
+        }
+        return QsfBlockCollection.finishFingerprint(hash);
+    }
+}
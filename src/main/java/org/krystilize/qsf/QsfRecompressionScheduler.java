@@ -0,0 +1,271 @@
+package org.krystilize.qsf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Stores encoded sections, writing them with cheap encoder settings first and re-encoding cold sections with heavier
+ * settings in the background.
+ * <p>
+ * A section is cold once it has not been saved or loaded for {@link Settings#coldAfter()}. The oldest sections are
+ * recompressed first, on a single low priority thread, and each pass stops once it has used its share of
+ * {@link Settings#cpuBudget()}.
+ * <p>
+ * Every payload carries the generation of the save it was made from, which increases with each save of a section. A
+ * recompressed payload only replaces the one it was made from, and is reported without holding any lock, so it can
+ * race with a newer save or a removal of the same section. Callers should persist a payload only if no payload with a
+ * greater generation has been persisted for its section, and drop payloads reported after the section was removed.
+ *
+ * @param <K> the section key
+ */
+public final class QsfRecompressionScheduler<K> implements AutoCloseable {
+
+    private final Settings settings;
+    private final QsfSectionEncoder fastEncoder;
+    private final QsfSectionEncoder compactEncoder;
+    private final QsfSectionDecoder decoder;
+    private final BiConsumer<K, Stored> recompressed;
+    private final Map<K, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generations = new AtomicLong();
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a scheduler and starts its background thread.
+     * @param settings     the settings
+     * @param recompressed called on the background thread with each recompressed payload, e.g. to persist it. If it
+     *                     throws, the section keeps its previous payload and is retried in a later pass.
+     */
+    public QsfRecompressionScheduler(Settings settings, BiConsumer<K, Stored> recompressed) {
+        this.settings = settings;
+        this.fastEncoder = new QsfSectionEncoder(settings.fast());
+        this.compactEncoder = new QsfSectionEncoder(settings.compact());
+        this.decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+        this.recompressed = recompressed;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "QSF Recompression");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        long period = settings.period().toNanos();
+        executor.scheduleWithFixedDelay(() -> {
+            // An exception would cancel every later pass
+            try {
+                recompressColdSections();
+            } catch (RuntimeException e) {
+                report(e);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Encodes and stores a section using the fast encoder settings.
+     * @param key    the section key
+     * @param blocks the section
+     * @return a copy of the encoded section, to be written immediately
+     */
+    public Stored save(K key, QsfBlocks blocks) {
+        byte[] bytes = fastEncoder.encode(blocks);
+        Payload[] saved = new Payload[1];
+        entries.compute(key, (k, entry) -> {
+            // Generations are taken while the section is locked by the map, so they increase in the order of saves
+            saved[0] = new Payload(bytes, generations.incrementAndGet(), false);
+            if (entry == null) {
+                return new Entry(saved[0]);
+            }
+            entry.payload.set(saved[0]);
+            entry.lastAccess = System.nanoTime();
+            return entry;
+        });
+        return new Stored(bytes.clone(), saved[0].generation());
+    }
+
+    /**
+     * Gets the current encoded form of a section, marking it as recently used.
+     * @param key the section key
+     * @return a copy of the encoded section, or null if there is no section with this key
+     */
+    public byte[] payload(K key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        return entry.payload.get().bytes().clone();
+    }
+
+    /**
+     * Decodes a section, marking it as recently used.
+     * @param key the section key
+     * @return the decoded section, or null if there is no section with this key
+     */
+    public QsfBlocks load(K key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        return decoder.decode(entry.payload.get().bytes());
+    }
+
+    /**
+     * Removes a section.
+     * @param key the section key
+     */
+    public void remove(K key) {
+        entries.computeIfPresent(key, (k, entry) -> {
+            entry.removed = true;
+            return null;
+        });
+    }
+
+    /**
+     * Recompresses cold sections on the calling thread, oldest first, until the CPU budget of one period is used.
+     * <p>
+     * The budget is measured in CPU time of the calling thread where the JVM supports it, and in wall-clock time
+     * otherwise. It is only checked between sections, so a pass can overrun it by up to one compact encode.
+     * <p>
+     * A section which fails to recompress is reported to the thread's uncaught exception handler and skipped.
+     * @return the number of sections recompressed
+     */
+    public int recompressColdSections() {
+        long now = System.nanoTime();
+        long coldAfter = settings.coldAfter().toNanos();
+
+        List<Map.Entry<K, Entry>> cold = new ArrayList<>();
+        for (Map.Entry<K, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            if (!value.payload.get().compact() && now - value.lastAccess >= coldAfter) {
+                cold.add(entry);
+            }
+        }
+        cold.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+
+        long budget = (long) (settings.period().toNanos() * settings.cpuBudget());
+        long start = cpuTime();
+        int count = 0;
+        for (Map.Entry<K, Entry> entry : cold) {
+            if (cpuTime() - start >= budget) {
+                break;
+            }
+            try {
+                if (recompress(entry.getKey(), entry.getValue())) {
+                    count++;
+                }
+            } catch (RuntimeException e) {
+                report(e);
+            }
+        }
+        return count;
+    }
+
+    private boolean recompress(K key, Entry entry) {
+        Payload current = entry.payload.get();
+        if (current.compact()) {
+            return false;
+        }
+
+        byte[] bytes = compactEncoder.encode(decoder.decode(current.bytes()));
+        if (bytes.length >= current.bytes().length) {
+            // Keep the original, but don't try again until it is saved
+            bytes = current.bytes();
+        }
+
+        Payload replacement = new Payload(bytes, current.generation(), true);
+        if (entry.removed || !entry.payload.compareAndSet(current, replacement)) {
+            // Saved or removed while we were recompressing
+            return false;
+        }
+        if (bytes != current.bytes()) {
+            try {
+                recompressed.accept(key, new Stored(bytes.clone(), current.generation()));
+            } catch (RuntimeException e) {
+                // Retry in a later pass, unless the section has been saved since
+                entry.payload.compareAndSet(replacement, current);
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    private static long cpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled()) {
+            return threads.getCurrentThreadCpuTime();
+        }
+        return System.nanoTime();
+    }
+
+    private static void report(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    /**
+     * Stops the background thread, sections which are still stored are left as they are.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static final class Entry {
+        private final AtomicReference<Payload> payload;
+        private volatile long lastAccess = System.nanoTime();
+        private volatile boolean removed = false;
+
+        private Entry(Payload payload) {
+            this.payload = new AtomicReference<>(payload);
+        }
+    }
+
+    private record Payload(byte[] bytes, long generation, boolean compact) {
+    }
+
+    /**
+     * An encoded section to be persisted.
+     * @param bytes      the encoded section
+     * @param generation the generation of the save this payload was made from, greater for each later save of the
+     *                   same section
+     */
+    public record Stored(byte[] bytes, long generation) {
+    }
+
+    /**
+     * The scheduler settings.
+     * @param fast      the encoder settings used when saving
+     * @param compact   the encoder settings used when recompressing
+     * @param coldAfter how long a section must go unused before it is recompressed
+     * @param period    the delay between recompression passes
+     * @param cpuBudget the fraction of each period a pass may spend recompressing, between 0 and 1
+     */
+    public record Settings(QsfSectionEncoder.Settings fast, QsfSectionEncoder.Settings compact, Duration coldAfter,
+                           Duration period, double cpuBudget) {
+
+        public Settings {
+            if (period.isNegative() || period.isZero()) {
+                throw new IllegalArgumentException("period must be positive");
+            }
+            if (cpuBudget < 0 || cpuBudget > 1) {
+                throw new IllegalArgumentException("cpuBudget must be between 0 and 1");
+            }
+        }
+
+        public Settings() {
+            this(QsfSectionEncoder.Settings.fast(), QsfSectionEncoder.Settings.compact(), Duration.ofMinutes(5),
+                    Duration.ofSeconds(1), 0.25);
+        }
+    }
+}
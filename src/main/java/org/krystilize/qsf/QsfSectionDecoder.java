@@ -11,6 +11,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * A single threaded decoder for the QSF format.
@@ -24,7 +25,7 @@ public record QsfSectionDecoder(Settings settings) {
      */
     public QsfBlocks decode(BitInput in) {
         try {
-            return decodeUNSAFE(in);
+            return decodeUNSAFE(in, null);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -57,7 +58,42 @@ public record QsfSectionDecoder(Settings settings) {
         return decode(new ByteArrayInputStream(bytes));
     }
 
-    private QsfBlocks decodeUNSAFE(BitInput in) throws IOException {
+    /**
+     * Decodes the blocks into off-heap memory.
+     * @param in the input
+     * @param arena the arena which owns the decoded section
+     * @return the decoded section
+     */
+    public QsfPackedBlocks decode(BitInput in, QsfOffHeapArena arena) {
+        Objects.requireNonNull(arena, "arena");
+        try {
+            return (QsfPackedBlocks) decodeUNSAFE(in, arena);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decodes the blocks into off-heap memory.
+     * @param in the input stream
+     * @param arena the arena which owns the decoded section
+     * @return the decoded section
+     */
+    public QsfPackedBlocks decode(InputStream in, QsfOffHeapArena arena) {
+        return decode(BitInputAdapter.from(StreamByteInput.from(in)), arena);
+    }
+
+    /**
+     * Decodes the blocks into off-heap memory.
+     * @param bytes the bytes
+     * @param arena the arena which owns the decoded section
+     * @return the decoded section
+     */
+    public QsfPackedBlocks decode(byte[] bytes, QsfOffHeapArena arena) {
+        return decode(new ByteArrayInputStream(bytes), arena);
+    }
+
+    private QsfBlocks decodeUNSAFE(BitInput in, QsfOffHeapArena arena) throws IOException {
 
         // Decode palette
         int paletteSize = in.readInt32();
@@ -80,10 +116,23 @@ public record QsfSectionDecoder(Settings settings) {
         }
 
         // Decode section
-        int bitSize = Math.max((int) Math.ceil(Math.log(paletteSize) / Math.log(2)), 1);
         int bitsCount = in.readInt32();
         byte[] bytes = BinaryUtils.readByteArray(in);
 
+        return decodeBlocks(blocks, bitsCount, bytes, arena);
+    }
+
+    /**
+     * Decodes the compressed palette indices of a section, once its palette and payload have been read.
+     * @param blocks the palette
+     * @param bitsCount the number of blocks in the section
+     * @param bytes the LZSS compressed palette indices
+     * @param arena the arena to decode into, or null to decode onto the heap
+     * @return the decoded section
+     */
+    QsfBlocks decodeBlocks(List<QsfBlocks.Block> blocks, int bitsCount, byte[] bytes, QsfOffHeapArena arena) {
+        int bitSize = bitSize(blocks.size());
+
         // Now we have all the data, we can decompress it
 
         // Apply decompression
@@ -96,6 +145,24 @@ public record QsfSectionDecoder(Settings settings) {
 
         // Decode bit by bit
         BitInput blocksIn = BitInputAdapter.from(StreamByteInput.from(new ByteArrayInputStream(decompressed)));
+        if (arena != null) {
+            QsfPackedBlocks packed = new QsfPackedBlocks(arena, blocks, bitsCount, bitSize);
+            for (int i = 0; i < bitsCount; i++) {
+                try {
+                    short index = BinaryUtils.readUnit(bitSize, blocksIn);
+                    // Checked here like the heap path, as an invalid index would only fail once the section is read
+                    if (index < 0 || index >= blocks.size()) {
+                        throw new IndexOutOfBoundsException("Palette index " + index + " out of bounds for a palette of " +
+                                blocks.size() + " blocks");
+                    }
+                    packed.setIndex(i, index);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return packed;
+        }
+
         List<QsfBlocks.Block> blockList = new ArrayList<>(16 * 16 * 16);
         for (int i = 0; i < bitsCount; i++) {
             try {
@@ -109,6 +176,15 @@ public record QsfSectionDecoder(Settings settings) {
         return QsfBlocks.collection(List.copyOf(blockList));
     }
 
+    /**
+     * Gets the size of each palette index in a section.
+     * @param paletteSize the number of blocks in the palette
+     * @return the size in bits
+     */
+    static int bitSize(int paletteSize) {
+        return Math.max((int) Math.ceil(Math.log(paletteSize) / Math.log(2)), 1);
+    }
+
     public record Settings() {
     }
 }
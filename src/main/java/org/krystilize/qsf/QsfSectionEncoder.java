@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * A single threaded encoder for the QSF format.
@@ -59,6 +60,31 @@ public record QsfSectionEncoder(Settings settings) {
         return out.toByteArray();
     }
 
+    /**
+     * Encodes the blocks as a length-prefixed frame, which can be read by a {@link QsfIncrementalDecoder}.
+     * @param blocks The blocks to encode.
+     * @param outStream The output to write to.
+     */
+    public void encodeFramed(QsfBlocks blocks, OutputStream outStream) {
+        BitOutput out = BitOutputAdapter.from(StreamByteOutput.from(outStream));
+        try {
+            BinaryUtils.writeByteArray(out, encode(blocks));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encodes the blocks as a length-prefixed frame, which can be read by a {@link QsfIncrementalDecoder}.
+     * @param blocks The blocks to encode.
+     * @return The encoded frame.
+     */
+    public byte[] encodeFramed(QsfBlocks blocks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encodeFramed(blocks, out);
+        return out.toByteArray();
+    }
+
     private void encodeUNSAFE(QsfBlocks blocks, BitOutput out) throws IOException {
 
         // Load the palette first
@@ -86,9 +112,9 @@ public record QsfSectionEncoder(Settings settings) {
             try {
                 BinaryUtils.writeSizedString(out, block.name());
 
-                // Block properties
+                // Block properties, sorted so equal sections always encode to the same bytes
                 out.writeInt32(block.properties().size());
-                block.properties().forEach((key, value) -> {
+                new TreeMap<>(block.properties()).forEach((key, value) -> {
                     try {
                         BinaryUtils.writeSizedString(out, key);
                         BinaryUtils.writeSizedString(out, value);
@@ -124,7 +150,8 @@ public record QsfSectionEncoder(Settings settings) {
         // Now we apply the LZSS compression
         byte[] compressed;
         try {
-            compressed = LZSSUtil.compressLZSS((short) bitSize, (short) blockSize[0], outputStream.toByteArray());
+            compressed = LZSSUtil.compressLZSS(settings.searchBuffer(), settings.lookAheadBuffer(), (short) bitSize,
+                    (short) blockSize[0], outputStream.toByteArray());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -133,6 +160,40 @@ public record QsfSectionEncoder(Settings settings) {
         BinaryUtils.writeByteArray(out, compressed);
     }
 
-    public record Settings() {
+    /**
+     * The encoder settings.
+     * @param searchBuffer    The LZSS search buffer size, larger buffers find more matches but are slower to encode.
+     * @param lookAheadBuffer The LZSS look ahead buffer size, this is the longest match that can be encoded.
+     */
+    public record Settings(short searchBuffer, short lookAheadBuffer) {
+
+        public Settings {
+            if (searchBuffer < 1 || searchBuffer > 4096) {
+                throw new IllegalArgumentException("searchBuffer must be between 1 and 4096");
+            }
+            if (lookAheadBuffer < 1 || lookAheadBuffer > searchBuffer) {
+                throw new IllegalArgumentException("lookAheadBuffer must be between 1 and searchBuffer");
+            }
+        }
+
+        public Settings() {
+            this((short) 127, (short) 32);
+        }
+
+        /**
+         * Settings which trade compression for encoding speed, suitable for saving on the main thread.
+         * @return the settings
+         */
+        public static Settings fast() {
+            return new Settings((short) 31, (short) 16);
+        }
+
+        /**
+         * Settings which trade encoding speed for compression, suitable for background recompression.
+         * @return the settings
+         */
+        public static Settings compact() {
+            return new Settings((short) 1023, (short) 32);
+        }
     }
 }
@@ -0,0 +1,86 @@
+package org.krystilize.qsf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QsfBlocksTest {
+
+    private final QsfSectionEncoder encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+    private final QsfSectionDecoder decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+
+    @Test
+    public void testContentEquals() {
+        try (var arena = new QsfOffHeapArena()) {
+            List<QsfBlocks.Block> blocks = blocks(4);
+            List<QsfBlocks> sections = List.of(
+                    QsfBlocks.collection(blocks),
+                    QsfBlocks.consumerRunner(blocks::forEach),
+                    decoder.decode(encoder.encode(QsfBlocks.collection(blocks))),
+                    decoder.decode(encoder.encode(QsfBlocks.collection(blocks)), arena)
+            );
+
+            for (QsfBlocks a : sections) {
+                for (QsfBlocks b : sections) {
+                    assertTrue(a.contentEquals(b));
+                    assertEquals(a.fingerprint(), b.fingerprint());
+                }
+                assertEquals(blocks.size(), a.size());
+                assertEquals(64, a.information().width());
+            }
+        }
+    }
+
+    @Test
+    public void testContentNotEquals() {
+        try (var arena = new QsfOffHeapArena()) {
+            List<QsfBlocks.Block> blocks = blocks(4);
+
+            List<QsfBlocks.Block> extra = new ArrayList<>(blocks);
+            extra.add(QsfBlocks.Block.of("extra"));
+
+            List<QsfBlocks.Block> changed = new ArrayList<>(blocks);
+            changed.set(1234, QsfBlocks.Block.of("block_0", Map.of("changed", "true")));
+
+            for (List<QsfBlocks.Block> other : List.of(extra, changed, blocks.subList(0, blocks.size() - 1))) {
+                List<QsfBlocks> sections = List.of(
+                        QsfBlocks.collection(blocks),
+                        QsfBlocks.consumerRunner(blocks::forEach),
+                        decoder.decode(encoder.encode(QsfBlocks.collection(blocks)), arena)
+                );
+                List<QsfBlocks> others = new ArrayList<>(List.of(
+                        QsfBlocks.collection(other),
+                        QsfBlocks.consumerRunner(other::forEach)
+                ));
+                if (other.size() == blocks.size()) {
+                    others.add(decoder.decode(encoder.encode(QsfBlocks.collection(other)), arena));
+                }
+
+                for (QsfBlocks a : sections) {
+                    for (QsfBlocks b : others) {
+                        assertFalse(a.contentEquals(b));
+                        assertFalse(b.contentEquals(a));
+                        assertNotEquals(a.fingerprint(), b.fingerprint());
+                    }
+                }
+            }
+        }
+    }
+
+    private List<QsfBlocks.Block> blocks(int count) {
+        List<QsfBlocks.Block> palette = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            palette.add(QsfBlocks.Block.of("block_" + i));
+        }
+
+        List<QsfBlocks.Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 16 * 16 * 16; i++) {
+            blocks.add(palette.get((i / 5) % count));
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,116 @@
+package org.krystilize.qsf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QsfDeduplicatingStoreTest {
+
+    @Test
+    public void testIdenticalSectionsAreShared() {
+        var store = new QsfDeduplicatingStore<Integer>(new QsfSectionEncoder.Settings(), new QsfSectionDecoder.Settings());
+
+        var air = store.put(0, fill("air"));
+        var sharedAir = store.put(1, fill("air"));
+        var stone = store.put(2, fill("stone"));
+
+        assertTrue(air.newPayload());
+        assertFalse(sharedAir.newPayload());
+        assertEquals(air.id(), sharedAir.id());
+        assertTrue(stone.newPayload());
+        assertNotEquals(air.id(), stone.id());
+        assertEquals(stone.id(), store.id(2));
+
+        assertEquals(3, store.size());
+        assertEquals(2, store.uniqueCount());
+
+        QsfBlocks decoded = store.load(0);
+        assertSame(decoded, store.load(1));
+        assertTrue(fill("air").contentEquals(decoded));
+        assertTrue(fill("stone").contentEquals(store.load(2)));
+    }
+
+    @Test
+    public void testReferenceCounting() {
+        var store = new QsfDeduplicatingStore<Integer>(new QsfSectionEncoder.Settings(), new QsfSectionDecoder.Settings());
+
+        store.put(0, fill("air"));
+        store.put(1, fill("air"));
+
+        // Replacing a key releases its old payload
+        store.put(0, fill("stone"));
+        assertEquals(2, store.uniqueCount());
+        store.put(1, fill("stone"));
+        assertEquals(1, store.uniqueCount());
+
+        store.remove(0);
+        assertEquals(1, store.uniqueCount());
+        long id = store.id(1);
+        store.remove(1);
+        assertEquals(0, store.uniqueCount());
+        assertFalse(store.isReferenced(id));
+        assertNull(store.payload(1));
+        assertNull(store.load(1));
+    }
+
+    @Test
+    public void testPayloadsAreCopied() {
+        var store = new QsfDeduplicatingStore<Integer>(new QsfSectionEncoder.Settings(), new QsfSectionDecoder.Settings());
+        byte[] bytes = new QsfSectionEncoder(new QsfSectionEncoder.Settings()).encode(fill("air"));
+
+        long id = store.put(0, bytes).id();
+        bytes[bytes.length - 1]++;
+        store.payload(0)[0]++;
+
+        var reference = store.put(1, fill("air"));
+        assertFalse(reference.newPayload());
+        assertEquals(id, reference.id());
+        assertTrue(fill("air").contentEquals(store.load(1)));
+    }
+
+    @Test
+    public void testRestore() {
+        var first = new QsfDeduplicatingStore<Integer>(new QsfSectionEncoder.Settings(), new QsfSectionDecoder.Settings());
+        long air = first.put(0, fill("air")).id();
+        first.put(1, fill("air"));
+        long stone = first.put(2, fill("stone")).id();
+
+        // Stands in for the persisted payloads
+        Map<Long, byte[]> disk = Map.of(air, first.payload(0), stone, first.payload(2));
+        List<Long> reads = new ArrayList<>();
+        LongFunction<byte[]> loader = id -> {
+            reads.add(id);
+            return disk.get(id);
+        };
+
+        var second = new QsfDeduplicatingStore<Integer>(new QsfSectionEncoder.Settings(), new QsfSectionDecoder.Settings());
+        second.restore(0, air, loader);
+        second.restore(1, air, loader);
+        second.restore(2, stone, loader);
+        assertEquals(List.of(air, stone), reads, "Each payload should be read once");
+        assertEquals(3, second.size());
+        assertEquals(2, second.uniqueCount());
+
+        // Restored payloads have the same ids, and are not new
+        var reference = second.put(3, fill("air"));
+        assertFalse(reference.newPayload());
+        assertEquals(air, reference.id());
+        assertTrue(fill("stone").contentEquals(second.load(2)));
+
+        assertThrows(IllegalStateException.class, () -> second.restore(4, air + 1, id -> disk.get(air)));
+    }
+
+    private QsfBlocks fill(String name) {
+        QsfBlocks.Block block = QsfBlocks.Block.of(name);
+        return QsfBlocks.consumerRunner(consumer -> {
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                consumer.accept(block);
+            }
+        });
+    }
+}
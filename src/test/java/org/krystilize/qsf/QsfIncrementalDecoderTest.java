@@ -0,0 +1,138 @@
+package org.krystilize.qsf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QsfIncrementalDecoderTest {
+
+    @Test
+    public void testChunkedFrames() {
+        for (int chunkSize : new int[]{1, 3, 7, 64, 4096}) {
+            testChunkedFrames(chunkSize, null);
+            try (var arena = new QsfOffHeapArena()) {
+                testChunkedFrames(chunkSize, arena);
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedPayload() {
+        var decoder = new QsfIncrementalDecoder(new QsfSectionDecoder.Settings());
+
+        // A payload which ends inside the LZSS header
+        ByteBuffer frame = ByteBuffer.allocate(4 * Integer.BYTES + 2).putInt(3 * Integer.BYTES + 2).putInt(0).putInt(0)
+                .putInt(2).put((byte) 0).put((byte) 0).flip();
+        assertThrows(IllegalStateException.class, () -> decoder.feed(frame));
+    }
+
+    @Test
+    public void testPollBeforeFeed() {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        var decoder = new QsfIncrementalDecoder(new QsfSectionDecoder.Settings());
+
+        byte[] frame = encoder.encodeFramed(blocks(4, 0));
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length * 2).put(frame).put(frame).flip();
+
+        assertEquals(QsfIncrementalDecoder.Result.SECTION_COMPLETE, decoder.feed(buffer));
+        assertThrows(IllegalStateException.class, () -> decoder.feed(buffer));
+        assertNotNull(decoder.poll());
+        assertNull(decoder.poll());
+        assertEquals(QsfIncrementalDecoder.Result.SECTION_COMPLETE, decoder.feed(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testInvalidLengths() {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        var decoder = new QsfIncrementalDecoder(new QsfSectionDecoder.Settings());
+
+        // Frame larger than the limit
+        assertThrows(IllegalStateException.class, () -> decoder.feed(ints(Integer.MAX_VALUE, 1, 0, 0)));
+
+        // Negative counts
+        assertThrows(IllegalStateException.class, () -> decoder.feed(ints(16, -1, 0, 0)));
+        assertThrows(IllegalStateException.class, () -> decoder.feed(ints(32, 1, 0, -1, 0, 0, 0)));
+        assertThrows(IllegalStateException.class, () -> decoder.feed(ints(32, 1, -1, 0, 0, 0, 0)));
+
+        // Counts which can't fit in the frame
+        assertThrows(IllegalStateException.class, () -> decoder.feed(ints(64, 1_000_000, 0, 0)));
+        assertThrows(IllegalStateException.class, () -> decoder.feed(ints(64, 1, 1_000_000, 0)));
+        assertThrows(IllegalStateException.class, () -> decoder.feed(ints(64, 1, 0, 1_000_000)));
+
+        // The decoder is reset after an error
+        ByteBuffer frame = ByteBuffer.wrap(encoder.encodeFramed(blocks(4, 0)));
+        assertEquals(QsfIncrementalDecoder.Result.SECTION_COMPLETE, decoder.feed(frame));
+        assertTrue(blocks(4, 0).contentEquals(decoder.poll()));
+    }
+
+    @Test
+    public void testMaxFrameSize() {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        byte[] frame = encoder.encodeFramed(blocks(4, 0));
+
+        var exact = new QsfIncrementalDecoder(new QsfSectionDecoder.Settings(), null, frame.length - Integer.BYTES);
+        assertEquals(QsfIncrementalDecoder.Result.SECTION_COMPLETE, exact.feed(ByteBuffer.wrap(frame)));
+
+        var smaller = new QsfIncrementalDecoder(new QsfSectionDecoder.Settings(), null, frame.length - Integer.BYTES - 1);
+        assertThrows(IllegalStateException.class, () -> smaller.feed(ByteBuffer.wrap(frame)));
+    }
+
+    private ByteBuffer ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.flip();
+    }
+
+    private void testChunkedFrames(int chunkSize, QsfOffHeapArena arena) {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        var decoder = new QsfIncrementalDecoder(new QsfSectionDecoder.Settings(), arena);
+
+        List<QsfBlocks> expected = new ArrayList<>();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (int count = 1; count < 32; count += 6) {
+            QsfBlocks blocks = blocks(count, count);
+            expected.add(blocks);
+            encoder.encodeFramed(blocks, outputStream);
+        }
+        byte[] encoded = outputStream.toByteArray();
+
+        List<QsfBlocks> actual = new ArrayList<>();
+        for (int offset = 0; offset < encoded.length; offset += chunkSize) {
+            ByteBuffer chunk = ByteBuffer.wrap(encoded, offset, Math.min(chunkSize, encoded.length - offset));
+            while (decoder.feed(chunk) == QsfIncrementalDecoder.Result.SECTION_COMPLETE) {
+                actual.add(decoder.poll());
+            }
+            assertFalse(chunk.hasRemaining());
+        }
+
+        assertEquals(expected.size(), actual.size(), "Expected and actual section count do not match");
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(expected.get(i).contentEquals(actual.get(i)), "Decoded section did not match with chunk size " + chunkSize);
+        }
+    }
+
+    private QsfBlocks blocks(int count, long seed) {
+        var random = new Random(seed);
+        var blocks = new QsfBlocks.Block[count];
+
+        for (int i = 0; i < count; i++) {
+            blocks[i] = QsfBlocks.Block.of("block_" + random.nextInt(), Map.of("facing", "north_" + i));
+        }
+
+        return QsfBlocks.consumerRunner(consumer -> {
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                consumer.accept(blocks[(i / 7) % count]);
+            }
+        });
+    }
+}
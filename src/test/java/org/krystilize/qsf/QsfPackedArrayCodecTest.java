@@ -0,0 +1,48 @@
+package org.krystilize.qsf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QsfPackedArrayCodecTest {
+
+    @Test
+    public void testEncodeDecode() {
+        for (boolean palette : new boolean[]{false, true}) {
+            for (boolean lzss : new boolean[]{false, true}) {
+                var codec = new QsfPackedArrayCodec(new QsfPackedArrayCodec.Settings(palette, lzss));
+
+                // Light nibbles, heightmap, biomes, and an array spanning several LZSS blocks
+                testEncodeDecode(codec, 4096, 4, 16);
+                testEncodeDecode(codec, 256, 9, 384);
+                testEncodeDecode(codec, 64, 6, 3);
+                testEncodeDecode(codec, 10000, 15, 20);
+                testEncodeDecode(codec, 1, 1, 2);
+                testEncodeDecode(codec, 0, 8, 1);
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidValues() {
+        var codec = new QsfPackedArrayCodec(new QsfPackedArrayCodec.Settings());
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new int[]{16}, 4));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new int[]{-1}, 4));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new int[]{0}, 16));
+    }
+
+    private void testEncodeDecode(QsfPackedArrayCodec codec, int length, int width, int distinct) {
+        var random = new Random(length);
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            // Runs of values, like real chunk layers
+            values[i] = i > 0 && random.nextInt(4) != 0 ? values[i - 1] : random.nextInt(distinct);
+        }
+
+        int[] decoded = codec.decode(codec.encode(values, width));
+        assertArrayEquals(values, decoded, "Decoded values did not match with settings: " + codec.settings() +
+                ", length=" + length + ", width=" + width);
+    }
+}
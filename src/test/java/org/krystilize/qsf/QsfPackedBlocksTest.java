@@ -0,0 +1,117 @@
+package org.krystilize.qsf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QsfPackedBlocksTest {
+
+    @Test
+    public void testDecodeOffHeap() {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        var decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+
+        try (var arena = new QsfOffHeapArena(4096)) {
+            for (int count = 1; count < 600; count += 37) {
+                QsfBlocks blocks = blocks(count);
+                QsfPackedBlocks packed = decoder.decode(encoder.encode(blocks), arena);
+
+                List<QsfBlocks.Block> expected = new ArrayList<>();
+                blocks.forEach(expected::add);
+
+                assertEquals(expected.size(), packed.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i), packed.get(i));
+                }
+                assertTrue(blocks.contentEquals(packed), "Decoded section blocks did not match with count=" + count);
+            }
+            assertTrue(arena.reservedBytes() > 0);
+        }
+    }
+
+    @Test
+    public void testSharedPalette() {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        var decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+
+        try (var arena = new QsfOffHeapArena()) {
+            QsfPackedBlocks first = decoder.decode(encoder.encode(blocks(4)), arena);
+            QsfPackedBlocks second = decoder.decode(encoder.encode(blocks(4)), arena);
+            QsfPackedBlocks larger = decoder.decode(encoder.encode(blocks(6)), arena);
+
+            assertEquals(first.palette(), second.palette());
+            for (int i = 0; i < first.palette().size(); i++) {
+                assertSame(first.palette().get(i), second.palette().get(i));
+                assertSame(first.palette().get(i), larger.palette().get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidPaletteIndex() throws IOException {
+        var decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+
+        // Three blocks, so each index takes two bits, but every index is 3
+        byte[] indices = new byte[16 * 16 * 16 * 2 / Byte.SIZE];
+        Arrays.fill(indices, (byte) 0xFF);
+        byte[] compressed = LZSSUtil.compressLZSS((short) 2, (short) (16 * 16 * 16), indices);
+        ByteBuffer section = ByteBuffer.allocate(3 * 10 + 3 * Integer.BYTES + compressed.length).putInt(3);
+        for (char name : new char[]{'a', 'b', 'c'}) {
+            section.putInt(1).putChar(name).putInt(0);
+        }
+        section.putInt(16 * 16 * 16).putInt(compressed.length).put(compressed);
+        byte[] bytes = section.array();
+
+        assertThrows(IndexOutOfBoundsException.class, () -> decoder.decode(bytes));
+        try (var arena = new QsfOffHeapArena()) {
+            assertThrows(IndexOutOfBoundsException.class, () -> decoder.decode(bytes, arena));
+
+            var incremental = new QsfIncrementalDecoder(new QsfSectionDecoder.Settings(), arena);
+            ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes).flip();
+            assertThrows(IllegalStateException.class, () -> incremental.feed(frame));
+        }
+    }
+
+    @Test
+    public void testNullArena() {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        var decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+        assertThrows(NullPointerException.class, () -> decoder.decode(encoder.encode(blocks(2)), null));
+    }
+
+    @Test
+    public void testClosedArena() {
+        var encoder = new QsfSectionEncoder(new QsfSectionEncoder.Settings());
+        var decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+        byte[] encoded = encoder.encode(blocks(5));
+
+        var arena = new QsfOffHeapArena();
+        QsfPackedBlocks packed = decoder.decode(encoded, arena);
+        arena.close();
+
+        assertThrows(IllegalStateException.class, () -> packed.get(0));
+        assertThrows(IllegalStateException.class, () -> packed.forEach(block -> {
+        }));
+        assertThrows(IllegalStateException.class, () -> decoder.decode(encoded, arena));
+        assertEquals(0, arena.reservedBytes());
+    }
+
+    private QsfBlocks blocks(int count) {
+        var blocks = new QsfBlocks.Block[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = QsfBlocks.Block.of("block_" + i);
+        }
+
+        return QsfBlocks.consumerRunner(consumer -> {
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                consumer.accept(blocks[(i / 3) % count]);
+            }
+        });
+    }
+}
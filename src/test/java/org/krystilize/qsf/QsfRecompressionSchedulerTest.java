@@ -0,0 +1,122 @@
+package org.krystilize.qsf;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QsfRecompressionSchedulerTest {
+
+    @Test
+    public void testRecompressColdSections() {
+        Map<Integer, QsfRecompressionScheduler.Stored> recompressed = new HashMap<>();
+        var settings = new QsfRecompressionScheduler.Settings(QsfSectionEncoder.Settings.fast(),
+                QsfSectionEncoder.Settings.compact(), Duration.ZERO, Duration.ofHours(1), 1);
+
+        try (var scheduler = new QsfRecompressionScheduler<Integer>(settings, recompressed::put)) {
+            for (int key = 0; key < 4; key++) {
+                scheduler.save(key, blocks(key + 2));
+            }
+
+            assertEquals(4, scheduler.recompressColdSections());
+            assertEquals(0, scheduler.recompressColdSections(), "Sections should only be recompressed once");
+
+            for (int key = 0; key < 4; key++) {
+                assertTrue(blocks(key + 2).contentEquals(scheduler.load(key)));
+                if (recompressed.containsKey(key)) {
+                    assertArrayEquals(recompressed.get(key).bytes(), scheduler.payload(key));
+                }
+            }
+
+            // Saving replaces the compact payload with a fast one again
+            var saved = scheduler.save(0, blocks(5));
+            assertArrayEquals(saved.bytes(), scheduler.payload(0));
+            assertTrue(scheduler.save(1, blocks(3)).generation() > saved.generation());
+
+            // Payloads are copied on the way out
+            scheduler.payload(0)[0]++;
+            assertArrayEquals(saved.bytes(), scheduler.payload(0));
+
+            recompressed.clear();
+            assertEquals(2, scheduler.recompressColdSections());
+            if (recompressed.containsKey(0)) {
+                assertEquals(saved.generation(), recompressed.get(0).generation());
+            }
+            assertTrue(blocks(5).contentEquals(scheduler.load(0)));
+
+            scheduler.remove(0);
+            assertNull(scheduler.payload(0));
+        }
+    }
+
+    @Test
+    public void testHotSectionsAreSkipped() {
+        var settings = new QsfRecompressionScheduler.Settings(QsfSectionEncoder.Settings.fast(),
+                QsfSectionEncoder.Settings.compact(), Duration.ofHours(1), Duration.ofHours(1), 1);
+
+        try (var scheduler = new QsfRecompressionScheduler<Integer>(settings, (key, bytes) -> fail())) {
+            scheduler.save(0, blocks(3));
+            assertEquals(0, scheduler.recompressColdSections());
+        }
+    }
+
+    @Test
+    public void testConcurrentSaves() throws InterruptedException {
+        // Stands in for the disk, written by both saves and recompression, which keeps the newest generation
+        Map<Integer, QsfRecompressionScheduler.Stored> disk = new ConcurrentHashMap<>();
+        BiConsumer<Integer, QsfRecompressionScheduler.Stored> write = (key, stored) -> disk.merge(key, stored,
+                (old, value) -> value.generation() >= old.generation() ? value : old);
+        var settings = new QsfRecompressionScheduler.Settings(QsfSectionEncoder.Settings.fast(),
+                QsfSectionEncoder.Settings.compact(), Duration.ZERO, Duration.ofHours(1), 1);
+
+        try (var scheduler = new QsfRecompressionScheduler<Integer>(settings, write)) {
+            AtomicBoolean saving = new AtomicBoolean(true);
+            Thread recompressor = new Thread(() -> {
+                while (saving.get()) {
+                    scheduler.recompressColdSections();
+                }
+            });
+            recompressor.start();
+
+            int versions = 12;
+            for (int version = 0; version < versions; version++) {
+                for (int key = 0; key < 3; key++) {
+                    write.accept(key, scheduler.save(key, blocks(version + key + 2)));
+                }
+            }
+            scheduler.save(3, blocks(2));
+            scheduler.remove(3);
+
+            saving.set(false);
+            recompressor.join();
+            scheduler.recompressColdSections();
+
+            var decoder = new QsfSectionDecoder(new QsfSectionDecoder.Settings());
+            for (int key = 0; key < 3; key++) {
+                QsfBlocks latest = blocks(versions - 1 + key + 2);
+                assertTrue(latest.contentEquals(decoder.decode(disk.get(key).bytes())), "Stale payload persisted for " + key);
+                assertTrue(latest.contentEquals(scheduler.load(key)));
+            }
+            assertNull(scheduler.payload(3));
+        }
+    }
+
+    private QsfBlocks blocks(int count) {
+        var blocks = new QsfBlocks.Block[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = QsfBlocks.Block.of("block_" + i);
+        }
+
+        return QsfBlocks.consumerRunner(consumer -> {
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                consumer.accept(blocks[(i * i / 97) % count]);
+            }
+        });
+    }
+}